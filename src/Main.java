@@ -1,13 +1,29 @@
 import algo.SortingStation;
+import server.ConversionServer;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.util.Scanner;
 
 public class Main {
 
-    public static void main(String[] args) {
+    /**
+     * Without arguments runs the REPL.
+     * serve <port> or serve unix:<path> serves the same commands over a local socket.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("serve")) {
+            serve(args[1]);
+            return;
+        }
         String prompt = "input> ";
         String output = "output: ";
-        String help = "possible commands: help, quit";
+        String value = "value: ";
+        String evalCommand = "eval ";
+        String help = "possible commands: help, quit, eval <expression>";
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print(prompt);
@@ -16,8 +32,21 @@ public class Main {
                 System.out.println(help);
             else if (line.equals("quit"))
                 break;
+            else if (line.startsWith(evalCommand))
+                System.out.println(value + SortingStation.evaluateExpression(line.substring(evalCommand.length())));
             else
                 System.out.println(output + SortingStation.proceedExpression(line));
         }
     }
-}
\ No newline at end of file
+
+    private static void serve(String where) throws IOException {
+        String unixPrefix = "unix:";
+        SocketAddress address = where.startsWith(unixPrefix)
+                ? UnixDomainSocketAddress.of(where.substring(unixPrefix.length()))
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(where));
+        try (ConversionServer server = new ConversionServer(address, new SortingStation(""))) {
+            System.out.println("listening on " + server.getLocalAddress());
+            server.run();
+        }
+    }
+}
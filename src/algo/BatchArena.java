@@ -0,0 +1,101 @@
+package algo;
+
+import containers.ArrayList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Off-heap memory for one batch of expressions.
+ * Buffers are cut from large direct blocks and are all released at once by {@link #reset()},
+ * after which the blocks are reused by the next batch without any GC involvement.
+ * Buffers handed out before a reset must not be used after it.
+ * Only reset() is free of GC: close() drops the blocks, and their memory is given back
+ * only when the garbage collector runs their cleaners. Long running jobs should keep one arena
+ * and reset it per batch instead of opening and closing an arena per batch.
+ */
+public class BatchArena implements AutoCloseable {
+
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int ALIGNMENT = 8;
+
+
+    private final int blockSize;
+    private final ArrayList<ByteBuffer> blocks = new ArrayList<>();
+    private int block = 0;
+    private int position = 0;
+    private int generation = 0;
+    private boolean closed = false;
+
+
+    public BatchArena() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public BatchArena(int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException();
+        this.blockSize = blockSize;
+    }
+
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Arena is closed");
+    }
+
+
+    public ByteBuffer allocate(int bytes) {
+        checkOpen();
+        if (bytes < 0)
+            throw new IllegalArgumentException();
+        bytes = (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        while (block < blocks.size() && blocks.get(block).capacity() - position < bytes) {
+            ++block;
+            position = 0;
+        }
+        if (block == blocks.size()) {
+            blocks.add(ByteBuffer.allocateDirect(Math.max(blockSize, bytes)));
+            position = 0;
+        }
+        ByteBuffer slice = blocks.get(block).slice(position, bytes).order(BYTE_ORDER);
+        position += bytes;
+        return slice;
+    }
+
+    /**
+     * Releases every buffer of the current batch. The blocks stay allocated for the next batch.
+     */
+    public void reset() {
+        checkOpen();
+        block = 0;
+        position = 0;
+        ++generation;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < blocks.size(); i++)
+            bytes += blocks.get(i).capacity();
+        return bytes;
+    }
+
+    /**
+     * Drops the blocks, their memory is freed by the garbage collector later.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        blocks.clear();
+        ++generation;
+        closed = true;
+    }
+}
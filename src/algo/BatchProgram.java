@@ -0,0 +1,184 @@
+package algo;
+
+import containers.ArrayList;
+import containers.List;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Several programs merged into one schedule where every distinct subexpression is computed once.
+ * Instruction i writes slot i, its arguments are slots of earlier instructions.
+ * All programs must be compiled with the same grammar, so they share variables.
+ */
+public class BatchProgram {
+
+
+    private record Key(byte op, long first, int second) {}
+
+
+    /**
+     * Converts and optimizes every expression with the grammar, then merges them.
+     * A mistake is reported with the index of its expression.
+     * The expression of the grammar station is overwritten.
+     */
+    public static BatchProgram compile(SortingStation grammar, List<String> expressions) {
+        ArrayList<RpnProgram> programs = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            grammar.setExpression(expressions.get(i));
+            try {
+                programs.add(grammar.compile());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Formula " + i + ": " + SortingStation.mistakeMessage(e), e);
+            }
+        }
+        return compile(programs);
+    }
+
+    public static BatchProgram compile(List<RpnProgram> programs) {
+        if (programs.empty())
+            throw new IllegalArgumentException("No programs");
+        String[] variables = programs.getFirst().variables;
+
+        HashMap<Key, Integer> slots = new HashMap<>();
+        byte[] code = new byte[16];
+        int[] first = new int[16];
+        int[] second = new int[16];
+        double[] constants = new double[16];
+        int size = 0;
+        int[] results = new int[programs.size()];
+
+        for (int p = 0; p < programs.size(); p++) {
+            RpnProgram program = programs.get(p);
+            if (!Arrays.equals(program.variables, variables))
+                throw new IllegalArgumentException("Programs have different variables");
+            int[] stack = new int[program.maxStackSize];
+            int top = -1;
+            for (int i = 0; i < program.code.length; i++) {
+                byte op = program.code[i];
+                int a, b = 0;
+                long keyFirst;
+                switch (RpnProgram.argumentsCount(op)) {
+                    case 0 -> {
+                        a = program.operands[i];
+                        keyFirst = op == RpnProgram.CONSTANT
+                                ? Double.doubleToRawLongBits(program.constants[a])
+                                : a;
+                    }
+                    case 1 -> {
+                        a = stack[top--];
+                        keyFirst = a;
+                    }
+                    default -> {
+                        b = stack[top--];
+                        a = stack[top--];
+                        // a+b and b+a are the same value
+                        if ((op == RpnProgram.ADD || op == RpnProgram.MULTIPLY) && a > b) {
+                            int t = a;
+                            a = b;
+                            b = t;
+                        }
+                        keyFirst = a;
+                    }
+                }
+                Key key = new Key(op, keyFirst, b);
+                Integer slot = slots.get(key);
+                if (slot == null) {
+                    if (size == code.length) {
+                        code = Arrays.copyOf(code, size * 2);
+                        first = Arrays.copyOf(first, size * 2);
+                        second = Arrays.copyOf(second, size * 2);
+                        constants = Arrays.copyOf(constants, size * 2);
+                    }
+                    code[size] = op;
+                    first[size] = a;
+                    second[size] = b;
+                    if (op == RpnProgram.CONSTANT)
+                        constants[size] = program.constants[a];
+                    slot = size++;
+                    slots.put(key, slot);
+                }
+                stack[++top] = slot;
+            }
+            results[p] = stack[0];
+        }
+
+        return new BatchProgram(
+                Arrays.copyOf(code, size),
+                Arrays.copyOf(first, size),
+                Arrays.copyOf(second, size),
+                Arrays.copyOf(constants, size),
+                variables,
+                results);
+    }
+
+
+    final byte[] code;
+    final int[] first;
+    final int[] second;
+    /**
+     * Value of the constant written by instruction i.
+     */
+    final double[] constants;
+    final String[] variables;
+    final int[] results;
+
+
+    BatchProgram(byte[] code, int[] first, int[] second, double[] constants, String[] variables, int[] results) {
+        this.code = code;
+        this.first = first;
+        this.second = second;
+        this.constants = constants;
+        this.variables = variables;
+        this.results = results;
+    }
+
+
+    public int size() {
+        return code.length;
+    }
+
+    public int resultsCount() {
+        return results.length;
+    }
+
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+
+    public double[] evaluate(double... variables) {
+        double[] results = new double[this.results.length];
+        evaluate(variables, new double[code.length], results);
+        return results;
+    }
+
+    /**
+     * Allocation free evaluation of one row, slots must hold at least size() values
+     * and results at least resultsCount() values.
+     */
+    public void evaluate(double[] variables, double[] slots, double[] results) {
+        evaluate(variables, slots);
+        for (int i = 0; i < this.results.length; i++)
+            results[i] = slots[this.results[i]];
+    }
+
+    /**
+     * Fills the shared slots only, result(i, slots) reads the value of a formula afterwards.
+     */
+    public void evaluate(double[] variables, double[] slots) {
+        if (variables.length < this.variables.length)
+            throw new IllegalArgumentException("Expected " + this.variables.length + " variables");
+        for (int i = 0; i < code.length; i++) {
+            slots[i] = switch (code[i]) {
+                case RpnProgram.CONSTANT -> constants[i];
+                case RpnProgram.VARIABLE -> variables[first[i]];
+                default -> RpnProgram.apply(code[i], slots[first[i]], slots[second[i]]);
+            };
+        }
+    }
+
+    public double result(int formula, double[] slots) {
+        return slots[results[formula]];
+    }
+}
@@ -0,0 +1,366 @@
+package algo;
+
+import algo.SortingStation.Token;
+import containers.ArrayList;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the postfix form of an expression up to date while the expression is edited.
+ * Every token keeps its part of the postfix form and the stack of the sorting station after it,
+ * stacks of neighbouring tokens share their nodes.
+ * An edit tokenizes the text again from the token it touches until the new tokens meet the old ones,
+ * then runs the sorting station from the stack before the edit until the stack is the same as before.
+ * Text and tokens are kept in gap buffers, so edits near each other do not move the rest of them.
+ * The cost of an edit grows with the edit and not with the expression, unless the edit changes
+ * what stays on the stack for the rest of it, like an unclosed bracket does.
+ * Results are the same as the ones of {@link SortingStation#proceedExpression(String)}.
+ * The grammar station is used for tokenizing, so its expression is overwritten.
+ */
+public class IncrementalConversion {
+
+
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Text given to the tokenizer at once, doubled while a token does not fit into it.
+     */
+    private static final int TOKENIZER_WINDOW = 64;
+    private static final Token[] NO_TOKENS = new Token[0];
+
+
+    private static class Entry {
+
+        /**
+         * null if the text can not be tokenized here, the entry then covers what the tokenizer read.
+         */
+        final Token token;
+        /**
+         * Offsets in the text: from its start before the gap of the entries, from its end after the gap.
+         */
+        int start, end;
+        /**
+         * Output of the sorting station for the token and its stack after the token.
+         */
+        Token[] output = NO_TOKENS;
+        PersistentStack.Node<Token> stack = null;
+        boolean failedStep = false;
+        boolean badNeighbours = false;
+
+        Entry(Token token, int start, int end) {
+            this.token = token;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean mistake() {
+            return token == null || failedStep || badNeighbours;
+        }
+    }
+
+
+    private final SortingStation grammar;
+
+    private char[] text = new char[INITIAL_CAPACITY];
+    private int textGapStart = 0;
+    private int textGapEnd = text.length;
+
+    private Entry[] entries = new Entry[INITIAL_CAPACITY];
+    private int gapStart = 0;
+    private int gapEnd = entries.length;
+
+    /**
+     * Entries with a mistake.
+     */
+    private int mistakes = 0;
+    private String result = null;
+
+    private final PersistentStack<Token> stack = new PersistentStack<>();
+    private final ArrayList<Token> output = new ArrayList<>();
+    private final Consumer<Token> sink = output::add;
+
+
+    public IncrementalConversion(SortingStation grammar, String expression) {
+        this.grammar = grammar;
+        edit(0, 0, expression);
+    }
+
+
+    public String getExpression() {
+        return substring(0, length());
+    }
+
+    /**
+     * Postfix form of the expression, it is written again only by the first call after an edit.
+     */
+    public String getResult() {
+        if (result != null)
+            return result;
+        int size = size();
+        int length = length();
+        try {
+            // trailing whitespace is a mistake for proceedExpression
+            if (mistakes > 0 || length > 0 && Character.isWhitespace(charAt(length - 1)))
+                throw new IllegalArgumentException();
+            if (size > 0)
+                SortingStation.checkEnds(entry(0).token, entry(size - 1).token);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < size; i++)
+                for (Token token : entry(i).output)
+                    SortingStation.appendToken(builder.append(" "), token);
+            stack.restore(size > 0 ? entry(size - 1).stack : null);
+            SortingStation.finish(stack, token -> SortingStation.appendToken(builder.append(" "), token));
+            result = builder.toString().trim();
+        } catch (RuntimeException e) {
+            result = SortingStation.mistakeMessage(e);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces removedLength characters at offset with the inserted text.
+     */
+    public void edit(int offset, int removedLength, String inserted) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > length())
+            throw new IndexOutOfBoundsException();
+        result = null;
+
+        // tokens which end before the edit are not changed by it
+        int first = firstEndingAt(offset);
+        moveGap(first);
+        replaceText(offset, removedLength, inserted);
+        int editEnd = offset + inserted.length();
+
+        Entry previous = first > 0 ? entries[first - 1] : null;
+        int position = previous == null ? 0 : previous.end;
+        while (true) {
+            position = skipWhitespace(position);
+            if (position == length()) {
+                while (gapEnd < entries.length)
+                    removeAfterGap();
+                break;
+            }
+            Entry entry = tokenize(position, previous);
+            // old entries touched by the edit or covered by the new token are dropped
+            boolean met = false;
+            while (gapEnd < entries.length) {
+                Entry old = entries[gapEnd];
+                int oldStart = length() - old.start;
+                if (oldStart >= editEnd && oldStart >= entry.start) {
+                    met = oldStart == entry.start && length() - old.end == entry.end && sameToken(old.token, entry.token);
+                    break;
+                }
+                removeAfterGap();
+            }
+            if (met)
+                break;
+            insertBeforeGap(entry);
+            previous = entry;
+            position = entry.end;
+        }
+        int added = gapStart - first;
+
+        PersistentStack.Node<Token> state = first > 0 ? entries[first - 1].stack : null;
+        for (int i = first; i < size(); i++) {
+            Entry entry = entry(i);
+            PersistentStack.Node<Token> old = entry.stack;
+            step(entry, state);
+            if (i >= first + added && sameStack(entry.stack, old))
+                break;
+            state = entry.stack;
+        }
+
+        for (int i = Math.max(0, first - 1); i <= first + added && i < size(); i++)
+            checkNeighbours(i);
+    }
+
+
+    private int length() {
+        return text.length - (textGapEnd - textGapStart);
+    }
+
+    private char charAt(int index) {
+        return index < textGapStart ? text[index] : text[index + textGapEnd - textGapStart];
+    }
+
+    private String substring(int from, int to) {
+        StringBuilder builder = new StringBuilder(to - from);
+        for (int i = from; i < to; i++)
+            builder.append(charAt(i));
+        return builder.toString();
+    }
+
+    private int skipWhitespace(int position) {
+        while (position < length() && Character.isWhitespace(charAt(position)))
+            position++;
+        return position;
+    }
+
+    private void replaceText(int offset, int removedLength, String inserted) {
+        while (textGapStart > offset)
+            text[--textGapEnd] = text[--textGapStart];
+        while (textGapStart < offset)
+            text[textGapStart++] = text[textGapEnd++];
+        textGapEnd += removedLength;
+        if (textGapEnd - textGapStart < inserted.length()) {
+            int tail = text.length - textGapEnd;
+            char[] bigger = new char[Math.max(text.length * 2, length() + inserted.length())];
+            System.arraycopy(text, 0, bigger, 0, textGapStart);
+            System.arraycopy(text, textGapEnd, bigger, bigger.length - tail, tail);
+            text = bigger;
+            textGapEnd = bigger.length - tail;
+        }
+        inserted.getChars(0, inserted.length(), text, textGapStart);
+        textGapStart += inserted.length();
+    }
+
+
+    private int size() {
+        return entries.length - (gapEnd - gapStart);
+    }
+
+    private Entry entry(int index) {
+        return index < gapStart ? entries[index] : entries[index + gapEnd - gapStart];
+    }
+
+    /**
+     * Index of the first entry which ends at the offset or after it.
+     */
+    private int firstEndingAt(int offset) {
+        int low = 0, high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int end = middle < gapStart ? entries[middle].end : length() - entry(middle).end;
+            if (end < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Moves the gap of the entries to the index, offsets of the moved entries are counted from the other side.
+     */
+    private void moveGap(int index) {
+        while (gapStart > index) {
+            Entry entry = entries[--gapStart];
+            entries[gapStart] = null;
+            entries[--gapEnd] = flip(entry);
+        }
+        while (gapStart < index) {
+            Entry entry = entries[gapEnd];
+            entries[gapEnd++] = null;
+            entries[gapStart++] = flip(entry);
+        }
+    }
+
+    private Entry flip(Entry entry) {
+        entry.start = length() - entry.start;
+        entry.end = length() - entry.end;
+        return entry;
+    }
+
+    private void insertBeforeGap(Entry entry) {
+        if (gapStart == gapEnd) {
+            int tail = entries.length - gapEnd;
+            Entry[] bigger = new Entry[entries.length * 2];
+            System.arraycopy(entries, 0, bigger, 0, gapStart);
+            System.arraycopy(entries, gapEnd, bigger, bigger.length - tail, tail);
+            entries = bigger;
+            gapEnd = bigger.length - tail;
+        }
+        entries[gapStart++] = entry;
+        if (entry.mistake())
+            mistakes++;
+    }
+
+    private void removeAfterGap() {
+        if (entries[gapEnd].mistake())
+            mistakes--;
+        entries[gapEnd++] = null;
+    }
+
+
+    /**
+     * Entry for the token at the position, previous is the entry before it.
+     */
+    private Entry tokenize(int position, Entry previous) {
+        Token.Type previousType = previous == null || previous.token == null ? null : previous.token.type;
+        for (int window = TOKENIZER_WINDOW; true; window *= 2) {
+            int windowEnd = Math.min(length(), position + window);
+            Token token = grammar.tokenAt(substring(position, windowEnd), previousType);
+            int end = position + grammar.readLength();
+            // the tokenizer looks one character after what it reads
+            if (end < windowEnd || windowEnd == length())
+                return new Entry(token, position, end);
+        }
+    }
+
+    private static boolean sameToken(Token a, Token b) {
+        if (a == null || b == null)
+            return a == b;
+        return a.type == b.type
+                && a.symbol == b.symbol
+                && (a.type != Token.Type.NUMBER || Double.compare(a.numberValue, b.numberValue) == 0
+                && a.exactInteger == b.exactInteger && a.integerValue == b.integerValue
+                && Objects.equals(a.value, b.value));
+    }
+
+    /**
+     * Compares stacks down to their common nodes.
+     */
+    private static boolean sameStack(PersistentStack.Node<Token> a, PersistentStack.Node<Token> b) {
+        while (a != b) {
+            if (a == null || b == null || a.size != b.size || !sameToken(a.data, b.data))
+                return false;
+            a = a.next;
+            b = b.next;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the sorting station for the token of the entry from the given stack.
+     */
+    private void step(Entry entry, PersistentStack.Node<Token> before) {
+        boolean mistake = entry.mistake();
+        entry.output = NO_TOKENS;
+        entry.stack = before;
+        entry.failedStep = false;
+        if (entry.token != null) {
+            output.clear();
+            stack.restore(before);
+            try {
+                SortingStation.proceedToken(entry.token, stack, sink);
+                entry.stack = stack.snapshot();
+                if (!output.empty()) {
+                    entry.output = new Token[output.size()];
+                    for (int i = 0; i < output.size(); i++)
+                        entry.output[i] = output.get(i);
+                }
+            } catch (RuntimeException e) {
+                entry.failedStep = true;
+            }
+        }
+        mistakes += (entry.mistake() ? 1 : 0) - (mistake ? 1 : 0);
+    }
+
+    private void checkNeighbours(int index) {
+        Entry entry = entry(index);
+        boolean mistake = entry.mistake();
+        entry.badNeighbours = false;
+        if (index > 0 && index < size() - 1 && entry.token != null) {
+            Token prev = entry(index - 1).token;
+            Token next = entry(index + 1).token;
+            if (prev != null && next != null) {
+                try {
+                    SortingStation.checkToken(prev, entry.token, next);
+                } catch (IllegalArgumentException e) {
+                    entry.badNeighbours = true;
+                }
+            }
+        }
+        mistakes += (entry.mistake() ? 1 : 0) - (mistake ? 1 : 0);
+    }
+}
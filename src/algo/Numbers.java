@@ -0,0 +1,180 @@
+package algo;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Parsing and formatting of number tokens without intermediate strings.
+ */
+class Numbers {
+
+
+    /**
+     * Powers of ten that are exact doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Integers up to 2^53 are exact doubles.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final String LONG_MAX_DIGITS = String.valueOf(Long.MAX_VALUE);
+    private static final String LONG_MIN_DIGITS = String.valueOf(Long.MIN_VALUE).substring(1);
+
+    /**
+     * Integral doubles below 2^53 are exact integers, larger ones are rounded.
+     */
+    private static final double EXACT_INTEGER_LIMIT = 0x1p53;
+    /**
+     * Every double is read back from this many significant digits.
+     */
+    private static final int MAX_ROUND_TRIP_DIGITS = 17;
+    /**
+     * The nearest decimal of a precision is tried first. Near a power of two the doubles around
+     * d are not equally far, so the nearest one may miss while the other neighbour reads back.
+     */
+    private static final RoundingMode[] ROUNDING_MODES = { RoundingMode.HALF_EVEN, RoundingMode.FLOOR, RoundingMode.CEILING };
+
+
+    /**
+     * Parses text.subSequence(from, to) like Double.parseDouble does.
+     * Plain decimal numbers are read in place, anything else falls back to Double.parseDouble.
+     */
+    static double parse(CharSequence text, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (text.charAt(i) == '+' || text.charAt(i) == '-'))
+            negative = text.charAt(i++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean dot = false;
+        boolean anyDigit = false;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || c != '0')
+                    if (++digits > MAX_LONG_DIGITS)
+                        return Double.parseDouble(text.subSequence(from, to).toString());
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot)
+                    exponent--;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return Double.parseDouble(text.subSequence(from, to).toString());
+            }
+        }
+        if (!anyDigit)
+            throw new NumberFormatException();
+
+        double result;
+        if (exponent == 0)
+            // integer, the conversion rounds exactly like Double.parseDouble
+            result = mantissa;
+        else if (digits <= MAX_EXACT_DIGITS && -exponent < POWERS_OF_TEN.length)
+            // both operands are exact, so the quotient is correctly rounded
+            result = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            return Double.parseDouble(text.subSequence(from, to).toString());
+        return negative ? -result : result;
+    }
+
+    /**
+     * Index of the first significant digit of an integer literal, a sign and digits, -1 for other literals.
+     */
+    private static int significantDigits(CharSequence text, int from, int to) {
+        int i = from;
+        if (i < to && (text.charAt(i) == '+' || text.charAt(i) == '-'))
+            i++;
+        if (i == to)
+            return -1;
+        for (int j = i; j < to; j++)
+            if (text.charAt(j) < '0' || text.charAt(j) > '9')
+                return -1;
+        while (i < to - 1 && text.charAt(i) == '0')
+            i++;
+        return i;
+    }
+
+    /**
+     * Whether text.subSequence(from, to) is an integer literal that fits in a long.
+     * Its double value may be rounded, Long.parseLong gives the exact one.
+     */
+    static boolean isLong(CharSequence text, int from, int to) {
+        int i = significantDigits(text, from, to);
+        if (i == -1 || to - i > MAX_LONG_DIGITS + 1)
+            return false;
+        if (to - i <= MAX_LONG_DIGITS)
+            return true;
+        String limit = text.charAt(from) == '-' ? LONG_MIN_DIGITS : LONG_MAX_DIGITS;
+        return CharSequence.compare(text.subSequence(i, to), limit) <= 0;
+    }
+
+    /**
+     * Exact text of an integer literal: its significant digits, with a minus if it is negative.
+     * null for other literals.
+     */
+    static String integerText(CharSequence text, int from, int to) {
+        int i = significantDigits(text, from, to);
+        if (i == -1)
+            return null;
+        boolean negative = text.charAt(from) == '-' && !(to - i == 1 && text.charAt(i) == '0');
+        return (negative ? "-" : "") + text.subSequence(i, to);
+    }
+
+    /**
+     * Integers below 2^53 are written exactly without fraction. Larger values are rounded anyway,
+     * so they get the shortest digits that read back as the same double. Other values are written
+     * as Double.toString does, which reads back too, but is the shortest form only since JDK 19.
+     */
+    static void append(StringBuilder builder, double d) {
+        if (d % 1 != 0)
+            builder.append(d);
+        else if (Math.abs(d) < EXACT_INTEGER_LIMIT)
+            builder.append((long) d);
+        else
+            appendShortest(builder, d);
+    }
+
+    /**
+     * Shortest decimal that reads back as d, in the scientific form of Double.toString.
+     * Double.toString itself is not always the shortest before JDK 19: 1.0E23 is 9.999999999999999E22.
+     */
+    private static void appendShortest(StringBuilder builder, double d) {
+        BigDecimal exact = new BigDecimal(d);
+        BigDecimal shortest = exact;
+        search:
+        for (int precision = 1; precision <= MAX_ROUND_TRIP_DIGITS; precision++) {
+            for (RoundingMode mode : ROUNDING_MODES) {
+                BigDecimal candidate = exact.round(new MathContext(precision, mode));
+                if (candidate.doubleValue() == d) {
+                    shortest = candidate.stripTrailingZeros();
+                    break search;
+                }
+            }
+        }
+        String digits = shortest.unscaledValue().abs().toString();
+        if (d < 0)
+            builder.append('-');
+        builder.append(digits.charAt(0)).append('.');
+        if (digits.length() > 1)
+            builder.append(digits, 1, digits.length());
+        else
+            builder.append('0');
+        builder.append('E').append(digits.length() - 1 - shortest.scale());
+    }
+
+    static String toString(double d) {
+        StringBuilder builder = new StringBuilder();
+        append(builder, d);
+        return builder.toString();
+    }
+}
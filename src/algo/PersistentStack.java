@@ -0,0 +1,72 @@
+package algo;
+
+import containers.Stack;
+
+/**
+ * Stack of immutable nodes for {@link IncrementalConversion}: a state taken with snapshot()
+ * stays valid while the stack changes, and states taken one after another share their bottom nodes.
+ */
+class PersistentStack<T> extends Stack<T> {
+
+
+    static final class Node <T> {
+        final T data;
+        final Node<T> next;
+        final int size;
+
+        private Node(T data, Node<T> next) {
+            this.data = data;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+    }
+
+
+    private Node<T> top = null;
+
+
+    @Override
+    public void push(T t) {
+        top = new Node<>(t, top);
+    }
+
+    @Override
+    public T pop() {
+        T t = top();
+        top = top.next;
+        return t;
+    }
+
+    @Override
+    public T top() {
+        if (top == null)
+            throw new IndexOutOfBoundsException();
+        return top.data;
+    }
+
+    @Override
+    public void clear() {
+        top = null;
+    }
+
+    @Override
+    public int size() {
+        return top == null ? 0 : top.size;
+    }
+
+    @Override
+    public boolean empty() {
+        return top == null;
+    }
+
+    /**
+     * Current state of the stack, null if it is empty.
+     */
+    Node<T> snapshot() {
+        return top;
+    }
+
+    void restore(Node<T> snapshot) {
+        top = snapshot;
+    }
+}
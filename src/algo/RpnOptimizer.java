@@ -0,0 +1,124 @@
+package algo;
+
+import containers.Stack;
+
+/**
+ * Shortens a compiled program: folds constant subexpressions and removes operations
+ * that do not change the value, e.g. x*1, x+0, x^1, 0-(0-x).
+ */
+public class RpnOptimizer {
+
+
+    private static class Node {
+
+        final byte op;
+        final int operand;
+        final double value;
+        final Node left, right;
+
+        Node(byte op, int operand, double value, Node left, Node right) {
+            this.op = op;
+            this.operand = operand;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        static Node constant(double value) {
+            return new Node(RpnProgram.CONSTANT, 0, value, null, null);
+        }
+
+        boolean isConstant() {
+            return op == RpnProgram.CONSTANT;
+        }
+
+        boolean isConstant(double value) {
+            return op == RpnProgram.CONSTANT && this.value == value;
+        }
+    }
+
+
+    public static RpnProgram optimize(RpnProgram program) {
+        Stack<Node> stack = new Stack<>();
+        for (int i = 0; i < program.code.length; i++) {
+            byte op = program.code[i];
+            switch (op) {
+                case RpnProgram.CONSTANT -> stack.push(Node.constant(program.constants[program.operands[i]]));
+                case RpnProgram.VARIABLE -> stack.push(new Node(op, program.operands[i], Double.NaN, null, null));
+                default -> {
+                    Node right = RpnProgram.argumentsCount(op) == 2 ? stack.pop() : null;
+                    Node left = stack.pop();
+                    stack.push(simplify(new Node(op, 0, Double.NaN, left, right)));
+                }
+            }
+        }
+        RpnProgram.Assembler assembler = new RpnProgram.Assembler();
+        emit(stack.pop(), assembler);
+        return assembler.toProgram(program.variables);
+    }
+
+
+    private static Node simplify(Node node) {
+        Node left = node.left, right = node.right;
+
+        if (left.isConstant() && (right == null || right.isConstant()))
+            return Node.constant(RpnProgram.apply(node.op, left.value, right == null ? Double.NaN : right.value));
+
+        switch (node.op) {
+            case RpnProgram.ADD -> {
+                if (right.isConstant(0))
+                    return left;
+                if (left.isConstant(0))
+                    return right;
+            }
+            case RpnProgram.SUBTRACT -> {
+                if (right.isConstant(0))
+                    return left;
+                // 0-(0-x) -> x
+                if (left.isConstant(0) && right.op == RpnProgram.SUBTRACT && right.left.isConstant(0))
+                    return right.right;
+            }
+            case RpnProgram.MULTIPLY -> {
+                if (right.isConstant(1))
+                    return left;
+                if (left.isConstant(1))
+                    return right;
+            }
+            case RpnProgram.DIVIDE -> {
+                if (right.isConstant(1))
+                    return left;
+            }
+            case RpnProgram.POWER -> {
+                if (right.isConstant(1))
+                    return left;
+                // Math.pow(x, 0) is 1 even for NaN
+                if (right.isConstant(0))
+                    return Node.constant(1);
+            }
+        }
+        return node;
+    }
+
+    private static void emit(Node root, RpnProgram.Assembler assembler) {
+        // iterative post-order, long left associative chains are too deep for recursion
+        Stack<Node> pending = new Stack<>();
+        Stack<Node> reversed = new Stack<>();
+        pending.push(root);
+        while (!pending.empty()) {
+            Node node = pending.pop();
+            reversed.push(node);
+            if (node.left != null)
+                pending.push(node.left);
+            if (node.right != null)
+                pending.push(node.right);
+        }
+        while (!reversed.empty()) {
+            Node node = reversed.pop();
+            switch (node.op) {
+                case RpnProgram.CONSTANT -> assembler.addConstant(node.value);
+                case RpnProgram.VARIABLE -> assembler.add(node.op, node.operand);
+                default -> assembler.add(node.op, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package algo;
+
+import containers.ArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Postfix program compiled from the output of {@link SortingStation}.
+ * Zero argument functions of the grammar are variables, their values are passed to evaluate()
+ * in the order they are listed in the grammar (see {@link #getVariables()}).
+ */
+public class RpnProgram {
+
+
+    /**
+     * Opcodes are stored in program files ({@link RpnProgramFile}), so they must not be renumbered.
+     */
+    static final byte
+            CONSTANT = 0,
+            VARIABLE = 1,
+            ADD = 2,
+            SUBTRACT = 3,
+            MULTIPLY = 4,
+            DIVIDE = 5,
+            POWER = 6,
+            FACTORIAL = 7,
+            SIN = 8,
+            COS = 9;
+
+    private static final String[] NAMES = { null, null, "+", "-", "*", "/", "^", "!", "sin", "cos" };
+    private static final int[] ARGUMENTS_COUNTS = { 0, 0, 2, 2, 2, 2, 2, 1, 1, 1 };
+
+    private static final int MAX_FACTORIAL_ARGUMENT = 170;
+
+
+    static boolean isOpcode(byte op) {
+        return op >= 0 && op < NAMES.length;
+    }
+
+    static int argumentsCount(byte op) {
+        return ARGUMENTS_COUNTS[op];
+    }
+
+    static byte opcode(int kind, String name, int argumentsCount) {
+        if (kind == TokenBuffer.FUNCTION && argumentsCount == 0)
+            return VARIABLE;
+        for (byte op = ADD; op < NAMES.length; op++)
+            if (NAMES[op].equals(name) && ARGUMENTS_COUNTS[op] == argumentsCount)
+                return op;
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+
+    static double factorial(double x) {
+        if (x < 0 || x % 1 != 0)
+            return Double.NaN;
+        if (x > MAX_FACTORIAL_ARGUMENT)
+            return Double.POSITIVE_INFINITY;
+        double result = 1;
+        for (int i = 2; i <= x; i++)
+            result *= i;
+        return result;
+    }
+
+    static double apply(byte op, double a, double b) {
+        return switch (op) {
+            case ADD -> a + b;
+            case SUBTRACT -> a - b;
+            case MULTIPLY -> a * b;
+            case DIVIDE -> a / b;
+            case POWER -> Math.pow(a, b);
+            case FACTORIAL -> factorial(a);
+            case SIN -> Math.sin(a);
+            case COS -> Math.cos(a);
+            default -> throw new IllegalArgumentException();
+        };
+    }
+
+
+    /**
+     * Collects instructions and constants of a program under construction.
+     */
+    static class Assembler {
+
+        private byte[] code = new byte[16];
+        private int[] operands = new int[16];
+        private double[] constants = new double[4];
+        private int size = 0;
+        private int constantsCount = 0;
+
+        void add(byte op, int operand) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            code[size] = op;
+            operands[size] = operand;
+            size++;
+        }
+
+        void addConstant(double value) {
+            if (constantsCount == constants.length)
+                constants = Arrays.copyOf(constants, constantsCount * 2);
+            constants[constantsCount] = value;
+            add(CONSTANT, constantsCount++);
+        }
+
+        RpnProgram toProgram(String[] variables) {
+            return new RpnProgram(
+                    Arrays.copyOf(code, size),
+                    Arrays.copyOf(operands, size),
+                    Arrays.copyOf(constants, constantsCount),
+                    variables);
+        }
+    }
+
+
+    /**
+     * Zero argument functions of the grammar.
+     */
+    static String[] variables(SortingStation grammar) {
+        ArrayList<String> variables = new ArrayList<>();
+        for (int i = 0; i < grammar.symbolsCount(TokenBuffer.FUNCTION); i++)
+            if (grammar.argumentsCount(TokenBuffer.FUNCTION, i) == 0)
+                variables.add(grammar.symbolName(TokenBuffer.FUNCTION, i));
+        String[] names = new String[variables.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = variables.get(i);
+        return names;
+    }
+
+    /**
+     * Compiles postfix records written by {@link SortingStation#proceedExpression(TokenBuffer)}.
+     */
+    public static RpnProgram compile(SortingStation grammar, TokenBuffer postfix) {
+        String[] variableNames = variables(grammar);
+        int[] variableSlots = new int[grammar.symbolsCount(TokenBuffer.FUNCTION)];
+        for (int i = 0, slot = 0; i < variableSlots.length; i++)
+            variableSlots[i] = grammar.argumentsCount(TokenBuffer.FUNCTION, i) == 0 ? slot++ : -1;
+
+        Assembler assembler = new Assembler();
+        for (int i = 0; i < postfix.size(); i++) {
+            int kind = postfix.kind(i);
+            if (kind == TokenBuffer.NUMBER) {
+                assembler.addConstant(postfix.value(i));
+                continue;
+            }
+            int symbol = postfix.symbol(i);
+            byte op = opcode(kind, grammar.symbolName(kind, symbol), grammar.argumentsCount(kind, symbol));
+            assembler.add(op, op == VARIABLE ? variableSlots[symbol] : 0);
+        }
+        return assembler.toProgram(variableNames);
+    }
+
+
+    final byte[] code;
+    final int[] operands;
+    final double[] constants;
+    final String[] variables;
+    final int maxStackSize;
+
+
+    RpnProgram(byte[] code, int[] operands, double[] constants, String[] variables) {
+        this.code = code;
+        this.operands = operands;
+        this.constants = constants;
+        this.variables = variables;
+        int stackSize = 0;
+        int maxStackSize = 0;
+        for (byte op : code) {
+            stackSize += 1 - ARGUMENTS_COUNTS[op];
+            if (stackSize <= 0)
+                throw new IllegalArgumentException("Not enough arguments");
+            maxStackSize = Math.max(maxStackSize, stackSize);
+        }
+        if (stackSize != 1)
+            throw new IllegalArgumentException("Expression must have exactly one value");
+        this.maxStackSize = maxStackSize;
+    }
+
+
+    public int size() {
+        return code.length;
+    }
+
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Index of the variable in the array passed to evaluate(), -1 if there is no such variable.
+     */
+    public int variableIndex(String name) {
+        for (int i = 0; i < variables.length; i++)
+            if (variables[i].equals(name))
+                return i;
+        return -1;
+    }
+
+
+    public double evaluate(double... variables) {
+        return evaluate(variables, new double[maxStackSize]);
+    }
+
+    /**
+     * Allocation free evaluation, stack must hold at least getMaxStackSize() values.
+     */
+    public double evaluate(double[] variables, double[] stack) {
+        if (variables.length < this.variables.length)
+            throw new IllegalArgumentException("Expected " + this.variables.length + " variables");
+        int top = -1;
+        for (int i = 0; i < code.length; i++) {
+            byte op = code[i];
+            switch (op) {
+                case CONSTANT -> stack[++top] = constants[operands[i]];
+                case VARIABLE -> stack[++top] = variables[operands[i]];
+                case ADD -> { top--; stack[top] += stack[top + 1]; }
+                case SUBTRACT -> { top--; stack[top] -= stack[top + 1]; }
+                case MULTIPLY -> { top--; stack[top] *= stack[top + 1]; }
+                case DIVIDE -> { top--; stack[top] /= stack[top + 1]; }
+                case POWER -> { top--; stack[top] = Math.pow(stack[top], stack[top + 1]); }
+                case FACTORIAL -> stack[top] = factorial(stack[top]);
+                case SIN -> stack[top] = Math.sin(stack[top]);
+                case COS -> stack[top] = Math.cos(stack[top]);
+            }
+        }
+        return stack[0];
+    }
+
+
+    public double evaluateGradient(double[] variables, int[] wrt, double[] gradient) {
+        return evaluateGradient(variables, wrt, gradient,
+                new double[maxStackSize], new double[maxStackSize * wrt.length]);
+    }
+
+    /**
+     * Value and derivatives with respect to the variables with indices wrt in one pass, using dual numbers.
+     * gradient[j] receives the derivative by variables[wrt[j]].
+     * Allocation free: values must hold at least getMaxStackSize() numbers,
+     * tangents at least getMaxStackSize() * wrt.length.
+     * Factorial is defined on integers only, so its derivative is NaN unless its argument is constant.
+     */
+    public double evaluateGradient(double[] variables, int[] wrt, double[] gradient, double[] values, double[] tangents) {
+        if (variables.length < this.variables.length)
+            throw new IllegalArgumentException("Expected " + this.variables.length + " variables");
+        for (int index : wrt)
+            if (index < 0 || index >= this.variables.length)
+                throw new IllegalArgumentException("No variable with index " + index);
+        int n = wrt.length;
+        if (gradient.length < n)
+            throw new IllegalArgumentException("Expected gradient of at least " + n + " values");
+        if (values.length < maxStackSize)
+            throw new IllegalArgumentException("Expected at least " + maxStackSize + " values");
+        if (tangents.length < (long) maxStackSize * n)
+            throw new IllegalArgumentException("Expected at least " + (long) maxStackSize * n + " tangents");
+        int top = -1;
+        for (int i = 0; i < code.length; i++) {
+            byte op = code[i];
+            if (op == CONSTANT || op == VARIABLE) {
+                ++top;
+                values[top] = op == CONSTANT ? constants[operands[i]] : variables[operands[i]];
+                for (int j = 0, t = top * n; j < n; j++, t++)
+                    tangents[t] = op == VARIABLE && wrt[j] == operands[i] ? 1 : 0;
+                continue;
+            }
+            if (ARGUMENTS_COUNTS[op] == 1) {
+                double a = values[top];
+                double derivative = switch (op) {
+                    case SIN -> Math.cos(a);
+                    case COS -> -Math.sin(a);
+                    default -> Double.NaN; // factorial
+                };
+                values[top] = apply(op, a, Double.NaN);
+                for (int j = 0, t = top * n; j < n; j++, t++)
+                    if (tangents[t] != 0)
+                        tangents[t] *= derivative;
+                continue;
+            }
+            --top;
+            double a = values[top], b = values[top + 1];
+            double result = apply(op, a, b);
+            // derivatives of the result by a and by b
+            double byA, byB;
+            switch (op) {
+                case ADD -> { byA = 1; byB = 1; }
+                case SUBTRACT -> { byA = 1; byB = -1; }
+                case MULTIPLY -> { byA = b; byB = a; }
+                case DIVIDE -> { byA = 1 / b; byB = -result / b; }
+                default -> { byA = b * Math.pow(a, b - 1); byB = result * Math.log(a); } // power
+            }
+            for (int j = 0, ta = top * n, tb = ta + n; j < n; j++, ta++, tb++) {
+                // zero tangents are skipped so that e.g. ln of a negative base does not spoil x^2
+                double t = 0;
+                if (tangents[ta] != 0)
+                    t += byA * tangents[ta];
+                if (tangents[tb] != 0)
+                    t += byB * tangents[tb];
+                tangents[ta] = t;
+            }
+            values[top] = result;
+        }
+        for (int j = 0; j < n; j++)
+            gradient[j] = tangents[j];
+        return values[0];
+    }
+
+
+    /**
+     * Postfix form in the format of {@link SortingStation#proceedExpression(String)}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < code.length; i++) {
+            if (i > 0)
+                result.append(' ');
+            switch (code[i]) {
+                case CONSTANT -> Numbers.append(result, constants[operands[i]]);
+                case VARIABLE -> result.append(variables[operands[i]]);
+                default -> result.append(NAMES[code[i]]);
+            }
+        }
+        return result.toString();
+    }
+}
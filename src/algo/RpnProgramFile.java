@@ -0,0 +1,262 @@
+package algo;
+
+import containers.ArrayList;
+import containers.List;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compiled programs with their grammar in a memory mapped file, loaded without tokenizing anything.
+ * Layout (little endian):
+ * header:    magic:int, version:int
+ * grammar:   numberChars:string, then functions, argument dividers, operators, opening brackets
+ *            and closing brackets, each as count:int followed by descriptions:string
+ * variables: count:int, names:string
+ * programs:  count:int, padding to 8, offsets:int[count], then every program at its offset:
+ *            codeLength:int, constantsCount:int, constants:double[], operands:int[], code:byte[],
+ *            padding to 8
+ * A string is length:int followed by UTF-8 bytes. Code holds {@link RpnProgram} opcodes.
+ */
+public class RpnProgramFile {
+
+
+    public static final int MAGIC = 0x504E5052; // "RPNP"
+    public static final int VERSION = 1;
+
+    private static final int[] GRAMMAR_KINDS = {
+            TokenBuffer.FUNCTION,
+            TokenBuffer.ARGUMENT_DIVIDER,
+            TokenBuffer.OPERATOR,
+            TokenBuffer.OPENING_BRACKET,
+            TokenBuffer.CLOSING_BRACKET
+    };
+    private static final int ALIGNMENT = 8;
+
+
+    private static int align(int position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int stringSize(String s) {
+        return Integer.BYTES + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Counts are checked against the rest of the file before anything is allocated for them.
+     */
+    private static int getCount(ByteBuffer buffer, int elementSize) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * elementSize > buffer.remaining())
+            throw new IOException("Corrupted program file");
+        return count;
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[getCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int programSize(RpnProgram program) {
+        return align(2 * Integer.BYTES
+                + program.constants.length * Double.BYTES
+                + program.code.length * Integer.BYTES
+                + program.code.length);
+    }
+
+
+    /**
+     * Writes programs compiled with the grammar into a temporary file next to the path,
+     * then moves it over the path at once, so readers see either the old file or the new one.
+     */
+    public static void write(Path path, SortingStation grammar, List<RpnProgram> programs) throws IOException {
+        String[] variables = RpnProgram.variables(grammar);
+
+        int size = 2 * Integer.BYTES + stringSize(grammar.getNumberChars());
+        for (int kind : GRAMMAR_KINDS) {
+            size += Integer.BYTES;
+            for (int i = 0; i < grammar.symbolsCount(kind); i++)
+                size += stringSize(grammar.symbolDescription(kind, i));
+        }
+        size += Integer.BYTES;
+        for (String variable : variables)
+            size += stringSize(variable);
+        size = align(size + Integer.BYTES);
+        int offsetsPosition = size;
+        size = align(size + programs.size() * Integer.BYTES);
+        for (int i = 0; i < programs.size(); i++) {
+            if (!Arrays.equals(programs.get(i).variables, variables))
+                throw new IllegalArgumentException("Program was compiled with another grammar");
+            size += programSize(programs.get(i));
+        }
+
+        // readers may have the old file mapped, so it is replaced as a whole and never rewritten in place
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(BatchArena.BYTE_ORDER);
+
+            buffer.putInt(MAGIC).putInt(VERSION);
+            putString(buffer, grammar.getNumberChars());
+            for (int kind : GRAMMAR_KINDS) {
+                buffer.putInt(grammar.symbolsCount(kind));
+                for (int i = 0; i < grammar.symbolsCount(kind); i++)
+                    putString(buffer, grammar.symbolDescription(kind, i));
+            }
+            buffer.putInt(variables.length);
+            for (String variable : variables)
+                putString(buffer, variable);
+            buffer.putInt(programs.size());
+
+            int position = align(offsetsPosition + programs.size() * Integer.BYTES);
+            for (int i = 0; i < programs.size(); i++) {
+                RpnProgram program = programs.get(i);
+                buffer.putInt(offsetsPosition + i * Integer.BYTES, position);
+                buffer.position(position);
+                buffer.putInt(program.code.length).putInt(program.constants.length);
+                for (double constant : program.constants)
+                    buffer.putDouble(constant);
+                for (int operand : program.operands)
+                    buffer.putInt(operand);
+                buffer.put(program.code);
+                position += programSize(program);
+            }
+            buffer.force();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    public static RpnProgramFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(BatchArena.BYTE_ORDER);
+            return new RpnProgramFile(buffer);
+        }
+    }
+
+
+    private final ByteBuffer buffer;
+    private final SortingStation grammar;
+    private final String[] variables;
+    private final int offsetsPosition;
+    private final int size;
+
+
+    private RpnProgramFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a program file");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported program file version " + version);
+
+            String numberChars = getString(buffer);
+            ArrayList<ArrayList<String>> descriptions = new ArrayList<>();
+            for (int ignored : GRAMMAR_KINDS) {
+                int count = getCount(buffer, Integer.BYTES);
+                ArrayList<String> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    list.add(getString(buffer));
+                descriptions.add(list);
+            }
+            grammar = new SortingStation("", numberChars,
+                    descriptions.get(0), descriptions.get(1), descriptions.get(2),
+                    descriptions.get(3), descriptions.get(4));
+
+            variables = new String[getCount(buffer, Integer.BYTES)];
+            for (int i = 0; i < variables.length; i++)
+                variables[i] = getString(buffer);
+            size = buffer.getInt();
+            offsetsPosition = align(buffer.position());
+            if (size < 0 || offsetsPosition + (long) size * Integer.BYTES > buffer.limit())
+                throw new IOException("Corrupted program file");
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted program file", e);
+        }
+    }
+
+
+    public SortingStation getGrammar() {
+        return grammar;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public RpnProgram get(int index) throws IOException {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        int position = buffer.getInt(offsetsPosition + index * Integer.BYTES);
+        if (position < 0 || position > buffer.limit() - 2 * Integer.BYTES)
+            throw new IOException("Corrupted program file");
+        return read(position);
+    }
+
+    /**
+     * All programs in one pass over the file.
+     */
+    public ArrayList<RpnProgram> readAll() throws IOException {
+        ArrayList<RpnProgram> programs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            programs.add(get(i));
+        return programs;
+    }
+
+    private RpnProgram read(int position) throws IOException {
+        try {
+            ByteBuffer view = buffer.duplicate().order(BatchArena.BYTE_ORDER).position(position);
+            int codeLength = view.getInt();
+            double[] constants = new double[getCount(view, Double.BYTES)];
+            // operands and code follow the constants
+            if (codeLength < 0
+                    || (long) codeLength * (Integer.BYTES + 1) > view.remaining() - (long) constants.length * Double.BYTES)
+                throw new IOException("Corrupted program file");
+            view.asDoubleBuffer().get(constants);
+            view.position(view.position() + constants.length * Double.BYTES);
+            int[] operands = new int[codeLength];
+            view.asIntBuffer().get(operands);
+            view.position(view.position() + codeLength * Integer.BYTES);
+            byte[] code = new byte[codeLength];
+            view.get(code);
+            for (int i = 0; i < codeLength; i++) {
+                if (!RpnProgram.isOpcode(code[i]))
+                    throw new IOException("Corrupted program file");
+                int limit = code[i] == RpnProgram.CONSTANT ? constants.length
+                        : code[i] == RpnProgram.VARIABLE ? variables.length
+                        : Integer.MAX_VALUE;
+                if (operands[i] < 0 || operands[i] >= limit)
+                    throw new IOException("Corrupted program file");
+            }
+            return new RpnProgram(code, operands, constants, variables);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted program file", e);
+        }
+    }
+}
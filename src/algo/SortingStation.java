@@ -4,10 +4,13 @@ import containers.ArrayList;
 import containers.Stack;
 import containers.UnmodifiableArrayList;
 
+import java.util.function.Consumer;
+
 public class SortingStation {
 
 
     private static final int UNDEFINED = -1;
+    private static final int SCRATCH_BLOCK_SIZE = 4096;
 
     private static final char PROPERTIES_DIVIDER = ':';
     private static final String PROPERTIES_DIVIDER_STR = String.valueOf(PROPERTIES_DIVIDER);
@@ -58,20 +61,33 @@ public class SortingStation {
     }
 
 
-    private static class Token implements Comparable<Token> {
+    static class Token implements Comparable<Token> {
 
         public enum Type {
-            NUMBER,
-            FUNCTION,
-            ARGUMENT_DIVIDER,
-            OPERATOR,
-            OPENING_BRACKET,
-            CLOSING_BRACKET
+            NUMBER(TokenBuffer.NUMBER),
+            FUNCTION(TokenBuffer.FUNCTION),
+            ARGUMENT_DIVIDER(TokenBuffer.ARGUMENT_DIVIDER),
+            OPERATOR(TokenBuffer.OPERATOR),
+            OPENING_BRACKET(TokenBuffer.OPENING_BRACKET),
+            CLOSING_BRACKET(TokenBuffer.CLOSING_BRACKET);
+
+            public final int kind;
+
+            Type(int kind) {
+                this.kind = kind;
+            }
         }
 
         public Type type = null;
         public String value = null;
+        public int symbol = UNDEFINED;
         public double numberValue = Double.NaN;
+        /**
+         * Integer literals are kept exactly too, numberValue may be rounded:
+         * in integerValue if they fit in a long, otherwise as their text in value.
+         */
+        public boolean exactInteger = false;
+        public long integerValue = 0;
         public int argumentsCount = UNDEFINED;
         public boolean leftAssociative = false;
         public int priority = UNDEFINED;
@@ -79,35 +95,37 @@ public class SortingStation {
         /**
          * General case.
          */
-        public Token(Type type, String value) {
+        public Token(Type type, String value, int symbol) {
             this.type = type;
             this.value = value;
+            this.symbol = symbol;
         }
 
         /**
-         * Number.
+         * Number, its text is written from the value when needed.
          */
-        public Token(String value, double numberValue) {
+        public Token(double numberValue) {
             this.type = Type.NUMBER;
-            this.value = value;
             this.numberValue = numberValue;
         }
 
         /**
          * Function.
          */
-        public Token(String value, int argumentsCount) {
+        public Token(String value, int symbol, int argumentsCount) {
             this.type = Type.FUNCTION;
             this.value = value;
+            this.symbol = symbol;
             this.argumentsCount = argumentsCount;
         }
 
         /**
          * Operator.
          */
-        public Token(String value, int argumentsCount, boolean leftAssociative, int priority) {
+        public Token(String value, int symbol, int argumentsCount, boolean leftAssociative, int priority) {
             this.type = Type.OPERATOR;
             this.value = value;
+            this.symbol = symbol;
             this.argumentsCount = argumentsCount;
             this.leftAssociative = leftAssociative;
             this.priority = priority;
@@ -133,6 +151,14 @@ public class SortingStation {
     }
 
 
+    /**
+     * Value of an expression without variables, or the mistake in it.
+     */
+    public static String evaluateExpression(String expression) {
+        return new SortingStation(expression).evaluateExpression();
+    }
+
+
     public static String proceedExpression(String expression,
                                            String numberChars,
                                            ArrayList<String> functions,
@@ -156,15 +182,18 @@ public class SortingStation {
     private final UnmodifiableArrayList<String>
             functionNames,
             operatorNames;
+    private final int maxSymbolLength;
 
     private String expression;
     private int index = 0;
 
     private final Stack<Token> stack = new Stack<>();
     private final ArrayList<Token> allTokens = new ArrayList<>();
+    private TokenBuffer output = null;
+    private BatchArena scratch = null;
 
 
-    private SortingStation(String expression) {
+    public SortingStation(String expression) {
         this(expression,
                 DEFAULT_NUMBER_CHARS,
                 DEFAULT_FUNCTIONS,
@@ -174,13 +203,13 @@ public class SortingStation {
                 DEFAULT_CLOSING_BRACKETS);
     }
 
-    private SortingStation(String expression,
-                           String numberChars,
-                           ArrayList<String> functions,
-                           ArrayList<String> argumentDividers,
-                           ArrayList<String> operators,
-                           ArrayList<String> openingBrackets,
-                           ArrayList<String> closingBrackets) {
+    public SortingStation(String expression,
+                          String numberChars,
+                          ArrayList<String> functions,
+                          ArrayList<String> argumentDividers,
+                          ArrayList<String> operators,
+                          ArrayList<String> openingBrackets,
+                          ArrayList<String> closingBrackets) {
         this(expression,
                 numberChars,
                 new UnmodifiableArrayList<>(functions),
@@ -218,9 +247,23 @@ public class SortingStation {
                 return new UnmodifiableArrayList<>(names);
             }
         }.collectOperatorNames();
+        this.maxSymbolLength = Math.max(
+                Math.max(maxLength(functionNames), maxLength(operatorNames)),
+                Math.max(maxLength(argumentDividers), Math.max(maxLength(openingBrackets), maxLength(closingBrackets))));
+    }
+
+    private static int maxLength(UnmodifiableArrayList<String> names) {
+        int result = 0;
+        for (int i = 0; i < names.size(); i++)
+            result = Math.max(result, names.get(i).length());
+        return result;
     }
 
 
+    public String getNumberChars() {
+        return numberChars;
+    }
+
     public String getExpression() {
         return expression;
     }
@@ -230,17 +273,161 @@ public class SortingStation {
     }
 
 
-    private String proceedExpression() {
+    /**
+     * Name of the symbol with the given id, e.g. symbolName(TokenBuffer.OPERATOR, 0) is "+" by default.
+     */
+    public String symbolName(int kind, int symbol) {
+        ArrayList<String> names = switch (kind) {
+            case TokenBuffer.FUNCTION -> functionNames;
+            case TokenBuffer.ARGUMENT_DIVIDER -> argumentDividers;
+            case TokenBuffer.OPERATOR -> operatorNames;
+            case TokenBuffer.OPENING_BRACKET -> openingBrackets;
+            case TokenBuffer.CLOSING_BRACKET -> closingBrackets;
+            default -> throw new IllegalArgumentException();
+        };
+        return names.get(symbol);
+    }
+
+    /**
+     * Description the symbol was given with, e.g. "+:2:l:1" for the default '+'.
+     */
+    public String symbolDescription(int kind, int symbol) {
+        return switch (kind) {
+            case TokenBuffer.FUNCTION -> functions.get(symbol);
+            case TokenBuffer.OPERATOR -> operators.get(symbol);
+            default -> symbolName(kind, symbol);
+        };
+    }
+
+    public int symbolsCount(int kind) {
+        return switch (kind) {
+            case TokenBuffer.FUNCTION -> functions.size();
+            case TokenBuffer.ARGUMENT_DIVIDER -> argumentDividers.size();
+            case TokenBuffer.OPERATOR -> operators.size();
+            case TokenBuffer.OPENING_BRACKET -> openingBrackets.size();
+            case TokenBuffer.CLOSING_BRACKET -> closingBrackets.size();
+            default -> throw new IllegalArgumentException();
+        };
+    }
+
+    public int argumentsCount(int kind, int symbol) {
+        if (kind == TokenBuffer.FUNCTION) {
+            String functionString = functions.get(symbol);
+            return Integer.parseInt(functionString.substring(functionString.indexOf(PROPERTIES_DIVIDER) + 1));
+        }
+        if (kind == TokenBuffer.OPERATOR) {
+            String operatorString = operators.get(symbol);
+            int firstIndex = operatorString.indexOf(PROPERTIES_DIVIDER);
+            int secondIndex = operatorString.indexOf(PROPERTIES_DIVIDER, firstIndex + 1);
+            return Integer.parseInt(operatorString.substring(firstIndex + 1, secondIndex));
+        }
+        throw new IllegalArgumentException();
+    }
+
+
+    static String mistakeMessage(Exception e) {
+        String result = e.getMessage();
+        if (result == null)
+            result = "Mistake in expression";
+        return result;
+    }
+
+    /**
+     * Postfix form of the current expression, or the mistake in it.
+     */
+    public String proceedExpression() {
         try {
             return proceedExpression0();
         } catch (Exception e) {
-            String result = e.getMessage();
-            if (result == null)
-                result = "Mistake in expression";
-            return result;
+            return mistakeMessage(e);
+        }
+    }
+
+    /**
+     * Value of the current expression without variables, or the mistake in it.
+     */
+    public String evaluateExpression() {
+        try {
+            return Numbers.toString(compile().evaluate());
+        } catch (Exception e) {
+            return mistakeMessage(e);
+        }
+    }
+
+    /**
+     * Appends the postfix form of the expression to the buffer instead of building a string.
+     * On a mistake nothing is appended and IllegalArgumentException is thrown.
+     */
+    public void proceedExpression(TokenBuffer buffer) {
+        int mark = buffer.size();
+        output = buffer;
+        try {
+            proceedExpression0();
+        } catch (RuntimeException e) {
+            // the mistake may be the reset arena itself, it must not be hidden by truncate()
+            if (buffer.isValid())
+                buffer.truncate(mark);
+            throw new IllegalArgumentException(mistakeMessage(e), e);
+        } finally {
+            output = null;
+        }
+    }
+
+    /**
+     * Appends the tokens of the expression to the buffer in their original order.
+     * On a mistake nothing is appended and IllegalArgumentException is thrown.
+     */
+    public void tokenize(TokenBuffer buffer) {
+        int mark = buffer.size();
+        index = 0;
+        allTokens.clear();
+        try {
+            while (hasNext()) {
+                Token token = nextToken();
+                buffer.add(token.type.kind, token.symbol, token.numberValue);
+                allTokens.add(token);
+            }
+        } catch (RuntimeException e) {
+            // the mistake may be the reset arena itself, it must not be hidden by truncate()
+            if (buffer.isValid())
+                buffer.truncate(mark);
+            throw new IllegalArgumentException(mistakeMessage(e), e);
         }
     }
 
+    /**
+     * Converts the expression and compiles it for evaluation, with constant folding.
+     */
+    public RpnProgram compile() {
+        return compile(true);
+    }
+
+    public RpnProgram compile(boolean optimize) {
+        if (scratch == null)
+            scratch = new BatchArena(SCRATCH_BLOCK_SIZE);
+        scratch.reset();
+        TokenBuffer postfix = new TokenBuffer(scratch);
+        proceedExpression(postfix);
+        RpnProgram program = RpnProgram.compile(this, postfix);
+        return optimize ? RpnOptimizer.optimize(program) : program;
+    }
+
+    private void emit(StringBuilder result, Token token) {
+        if (output != null)
+            output.add(token.type.kind, token.symbol, token.numberValue);
+        else
+            appendToken(result.append(" "), token);
+    }
+
+    static void appendToken(StringBuilder builder, Token token) {
+        if (token.type == Token.Type.NUMBER && token.exactInteger)
+            builder.append(token.integerValue);
+        else if (token.type == Token.Type.NUMBER && token.value == null)
+            Numbers.append(builder, token.numberValue);
+        else
+            builder.append(token.value);
+    }
+
     private String proceedExpression0() {
 
         index = 0;
@@ -248,104 +435,153 @@ public class SortingStation {
         allTokens.clear();
 
         StringBuilder result = new StringBuilder();
+        Consumer<Token> sink = token -> emit(result, token);
 
         while (hasNext()) {
-
             Token token = nextToken();
+            proceedToken(token, stack, sink);
+            allTokens.add(token);
+        }
 
-            switch (token.type) {
-                case NUMBER -> result.append(" ").append(token.value);
-                case FUNCTION -> {
-                    if (token.argumentsCount == 0)
-                        result.append(" ").append(token.value);
-                    else
-                        stack.push(token);
-                }
-                case ARGUMENT_DIVIDER -> {
-                    while (true) {
-                        if (stack.empty())
-                            throw new IllegalArgumentException();
-                        if (stack.top().type == Token.Type.OPENING_BRACKET)
-                            break;
-                        if (stack.top().type != Token.Type.OPERATOR)
-                            throw new IllegalArgumentException();
-                        result.append(" ").append(stack.pop().value);
-                    }
-                }
-                case OPERATOR -> {
-
-                    while (!stack.empty()
-                            && stack.top().type == Token.Type.OPERATOR
-                            && (stack.top().compareTo(token) > 0
-                            || (stack.top().compareTo(token) == 0
-                            && token.leftAssociative
-                    )
-                    )
-                    ) {
-                        result.append(" ").append(stack.pop().value);
-                    }
+        checkTokens(allTokens);
+
+        finish(stack, sink);
+
+        return result.toString().trim();
+    }
+
+    /**
+     * One step of the algorithm: outputs what the token allows to output and updates the stack.
+     */
+    static void proceedToken(Token token, Stack<Token> stack, Consumer<Token> sink) {
+        switch (token.type) {
+            case NUMBER -> sink.accept(token);
+            case FUNCTION -> {
+                if (token.argumentsCount == 0)
+                    sink.accept(token);
+                else
                     stack.push(token);
-                }
-                case OPENING_BRACKET -> stack.push(token);
-                case CLOSING_BRACKET -> {
-                    while (true) {
-                        if (!stack.empty() && stack.top().type == Token.Type.OPENING_BRACKET)
-                            break;
-                        if (stack.empty() || stack.top().type != Token.Type.OPERATOR)
-                            throw new IllegalArgumentException();
-                        result.append(" ").append(stack.pop().value);
-                    }
-                    stack.pop(); // pop '('
-                    if (!stack.empty() && stack.top().type == Token.Type.FUNCTION)
-                        result.append(" ").append(stack.pop().value);
+            }
+            case ARGUMENT_DIVIDER -> {
+                while (true) {
+                    if (stack.empty())
+                        throw new IllegalArgumentException();
+                    if (stack.top().type == Token.Type.OPENING_BRACKET)
+                        break;
+                    if (stack.top().type != Token.Type.OPERATOR)
+                        throw new IllegalArgumentException();
+                    sink.accept(stack.pop());
                 }
             }
+            case OPERATOR -> {
 
-            allTokens.add(token);
-        }
-
-        for (int i = 1; i < allTokens.size() - 1; ++i) {
-            Token cur = allTokens.get(i);
-            if (cur.type == Token.Type.OPERATOR) {
-                Token.Type prevType = allTokens.get(i - 1).type;
-                Token.Type nextType = allTokens.get(i + 1).type;
-                if ((prevType == Token.Type.OPERATOR && allTokens.get(i - 1).argumentsCount == 2)
-                        || prevType == Token.Type.FUNCTION
-                        || prevType == Token.Type.ARGUMENT_DIVIDER
-                        || prevType == Token.Type.OPENING_BRACKET
-                        ||
-                        cur.argumentsCount == 2
-                                && (nextType == Token.Type.OPERATOR
-                                || nextType == Token.Type.ARGUMENT_DIVIDER
-                                || nextType == Token.Type.OPENING_BRACKET)
+                while (!stack.empty()
+                        && stack.top().type == Token.Type.OPERATOR
+                        && (stack.top().compareTo(token) > 0
+                        || (stack.top().compareTo(token) == 0
+                        && token.leftAssociative
+                )
                 )
-                    throw new IllegalArgumentException();
-            } else if (cur.type == Token.Type.FUNCTION) {
-                Token.Type nextType = allTokens.get(i + 1).type;
-                if (cur.argumentsCount > 0 && nextType != Token.Type.OPENING_BRACKET
-                        || cur.argumentsCount == 0 && nextType == Token.Type.OPENING_BRACKET)
-                    throw new IllegalArgumentException();
+                ) {
+                    sink.accept(stack.pop());
+                }
+                stack.push(token);
+            }
+            case OPENING_BRACKET -> stack.push(token);
+            case CLOSING_BRACKET -> {
+                while (true) {
+                    if (!stack.empty() && stack.top().type == Token.Type.OPENING_BRACKET)
+                        break;
+                    if (stack.empty() || stack.top().type != Token.Type.OPERATOR)
+                        throw new IllegalArgumentException();
+                    sink.accept(stack.pop());
+                }
+                stack.pop(); // pop '('
+                proceedFunctionCall(stack, sink);
             }
         }
+    }
 
-        if (!allTokens.empty()) {
-            Token firstToken = allTokens.getFirst();
-            if (firstToken.type == Token.Type.OPERATOR && firstToken.argumentsCount != 1 && firstToken.leftAssociative)
-                throw new IllegalArgumentException();
-            Token lastToken = allTokens.getLast();
-            if (lastToken.type == Token.Type.FUNCTION && lastToken.argumentsCount > 0)
-                throw new IllegalArgumentException();
-            if (lastToken.type == Token.Type.OPERATOR && !(lastToken.argumentsCount == 1 && !lastToken.leftAssociative))
-                throw new IllegalArgumentException();
-        }
+    /**
+     * Outputs the function whose arguments were just closed, if any.
+     */
+    static void proceedFunctionCall(Stack<Token> stack, Consumer<Token> sink) {
+        if (!stack.empty() && stack.top().type == Token.Type.FUNCTION)
+            sink.accept(stack.pop());
+    }
 
+    static void finish(Stack<Token> stack, Consumer<Token> sink) {
         while (!stack.empty()) {
             if (stack.top().type == Token.Type.OPENING_BRACKET)
                 throw new IllegalArgumentException("More opening brackets than closing ones");
-            result.append(" ").append(stack.pop().value);
+            sink.accept(stack.pop());
         }
+    }
 
-        return result.toString().trim();
+    /**
+     * Checks that operators and functions have proper neighbours.
+     */
+    static void checkTokens(ArrayList<Token> allTokens) {
+        for (int i = 1; i < allTokens.size() - 1; ++i)
+            checkToken(allTokens.get(i - 1), allTokens.get(i), allTokens.get(i + 1));
+        if (!allTokens.empty())
+            checkEnds(allTokens.getFirst(), allTokens.getLast());
+    }
+
+    /**
+     * Checks a token which is neither the first nor the last one.
+     */
+    static void checkToken(Token prev, Token cur, Token next) {
+        if (cur.type == Token.Type.OPERATOR) {
+            if ((prev.type == Token.Type.OPERATOR && prev.argumentsCount == 2)
+                    || (prev.type == Token.Type.FUNCTION && prev.argumentsCount > 0)
+                    || prev.type == Token.Type.ARGUMENT_DIVIDER
+                    || prev.type == Token.Type.OPENING_BRACKET
+                    ||
+                    cur.argumentsCount == 2
+                            && (next.type == Token.Type.OPERATOR
+                            || next.type == Token.Type.ARGUMENT_DIVIDER
+                            || next.type == Token.Type.CLOSING_BRACKET)
+            )
+                throw new IllegalArgumentException();
+        } else if (cur.type == Token.Type.FUNCTION) {
+            if (cur.argumentsCount > 0 && next.type != Token.Type.OPENING_BRACKET
+                    || cur.argumentsCount == 0 && next.type == Token.Type.OPENING_BRACKET)
+                throw new IllegalArgumentException();
+        }
+    }
+
+    static void checkEnds(Token firstToken, Token lastToken) {
+        if (firstToken.type == Token.Type.OPERATOR && firstToken.argumentsCount != 1 && firstToken.leftAssociative)
+            throw new IllegalArgumentException();
+        if (lastToken.type == Token.Type.FUNCTION && lastToken.argumentsCount > 0)
+            throw new IllegalArgumentException();
+        if (lastToken.type == Token.Type.OPERATOR && !(lastToken.argumentsCount == 1 && !lastToken.leftAssociative))
+            throw new IllegalArgumentException();
+    }
+
+
+    /**
+     * Token at the start of the text, used by {@link IncrementalConversion}.
+     * previousType is the type of the token before it, null at the start of an expression.
+     * Returns null if the text does not start with a token.
+     * In both cases readLength() tells how much of the text was read.
+     */
+    Token tokenAt(String text, Token.Type previousType) {
+        expression = text;
+        index = 0;
+        allTokens.clear();
+        if (previousType != null)
+            allTokens.add(new Token(previousType, null, UNDEFINED));
+        try {
+            return nextToken();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    int readLength() {
+        return index;
     }
 
 
@@ -359,31 +595,18 @@ public class SortingStation {
         for (String cur = String.valueOf(nextChar()); true;) {
 
             if (cur.length() == 1 && numberChars.indexOf(cur.charAt(0)) != -1) {
-                if (cur.charAt(0) != '+' && cur.charAt(0) != '-' && cur.charAt(0) != '.' || numberChars.indexOf(watchNextChar()) != -1) {
+                if (cur.charAt(0) != '+' && cur.charAt(0) != '-' && cur.charAt(0) != '.' || hasNext() && numberChars.indexOf(watchNextChar()) != -1) {
                     if (allTokens.empty() || (
                             allTokens.getLast().type == Token.Type.OPERATOR
                             || allTokens.getLast().type == Token.Type.ARGUMENT_DIVIDER
-                            || allTokens.getLast().type == Token.Type.OPENING_BRACKET)) {
-                        while (hasNext() && watchNextChar() != '+' && watchNextChar() != '-' && numberChars.indexOf(watchNextChar()) != -1)
-                            cur += nextChar();
-                        try {
-                            double d = Double.parseDouble(cur);
-                            if (d % 1 == 0)
-                                cur = String.valueOf((int)d);
-                            else
-                                cur = String.valueOf(d);
-                            // +5 -> 5
-                            return new Token(cur, d);
-                        } catch (NumberFormatException nfe) {
-                            throw new IllegalArgumentException();
-                        }
-                    }
+                            || allTokens.getLast().type == Token.Type.OPENING_BRACKET))
+                        return nextNumber(index - 1);
                 }
             }
 
             for (int i = 0; i < functionNames.size(); i++) {
                 if (cur.equals(functionNames.get(i))) {
-                    return new Token(cur,
+                    return new Token(cur, i,
                             Integer.parseInt(
                                     functions.get(i).substring(
                                             functions.get(i).indexOf(PROPERTIES_DIVIDER) + 1
@@ -397,7 +620,7 @@ public class SortingStation {
                     int firstIndex = operatorString.indexOf(':');
                     int secondIndex = operatorString.indexOf(':', firstIndex + 1);
                     int thirdIndex = operatorString.indexOf(':', secondIndex + 1);
-                    return new Token(cur,
+                    return new Token(cur, i,
                             Integer.parseInt(operatorString.substring(firstIndex + 1, secondIndex)),
                             operatorString.substring(secondIndex + 1, thirdIndex).equals(LEFT_ASSOCIATIVE_SYMBOL_STR),
                             Integer.parseInt(operatorString.substring(thirdIndex + 1)));
@@ -406,15 +629,15 @@ public class SortingStation {
 
             for (int i = 0; i < openingBrackets.size(); i++)
                 if (cur.equals(openingBrackets.get(i)))
-                    return new Token(Token.Type.OPENING_BRACKET, cur);
+                    return new Token(Token.Type.OPENING_BRACKET, cur, i);
             for (int i = 0; i < closingBrackets.size(); i++)
                 if (cur.equals(closingBrackets.get(i)))
-                    return new Token(Token.Type.CLOSING_BRACKET, cur);
+                    return new Token(Token.Type.CLOSING_BRACKET, cur, i);
             for (int i = 0; i < argumentDividers.size(); i++)
                 if (cur.equals(argumentDividers.get(i)))
-                    return new Token(Token.Type.ARGUMENT_DIVIDER, cur);
+                    return new Token(Token.Type.ARGUMENT_DIVIDER, cur, i);
 
-            if (!hasNext() || Character.isWhitespace(watchNextChar()))
+            if (!hasNext() || Character.isWhitespace(watchNextChar()) || cur.length() >= maxSymbolLength)
                 throw new IllegalArgumentException();
 
             cur += nextChar();
@@ -422,6 +645,29 @@ public class SortingStation {
     }
 
 
+    /**
+     * Reads the rest of the number which starts at the given index directly from the expression.
+     */
+    private Token nextNumber(int start) {
+        while (hasNext() && watchNextChar() != '+' && watchNextChar() != '-' && numberChars.indexOf(watchNextChar()) != -1)
+            ++index;
+        try {
+            // +5 -> 5
+            Token token = new Token(Numbers.parse(expression, start, index));
+            if (Numbers.isLong(expression, start, index)) {
+                token.exactInteger = true;
+                token.integerValue = Long.parseLong(expression, start, index, 10);
+            } else {
+                // longer integers are rare, they keep their text
+                token.value = Numbers.integerText(expression, start, index);
+            }
+            return token;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+
     private void skipWhitespace() {
         if (index < 0 || index >= expression.length())
             return;
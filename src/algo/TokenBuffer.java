@@ -0,0 +1,143 @@
+package algo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Off-heap sequence of fixed-width token records allocated from a {@link BatchArena}.
+ * Record layout (little endian, {@link #RECORD_SIZE} bytes):
+ * kind:int, symbol:int, value:double
+ * The symbol is an index into the grammar list of its kind (functions, operators, ...),
+ * the value is only meaningful for numbers.
+ */
+public class TokenBuffer {
+
+
+    public static final int
+            NUMBER = 0,
+            FUNCTION = 1,
+            ARGUMENT_DIVIDER = 2,
+            OPERATOR = 3,
+            OPENING_BRACKET = 4,
+            CLOSING_BRACKET = 5;
+
+    public static final int RECORD_SIZE = 16;
+
+    private static final int KIND_OFFSET = 0;
+    private static final int SYMBOL_OFFSET = 4;
+    private static final int VALUE_OFFSET = 8;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final double CAPACITY_MULTIPLIER = 1.73205080757;
+
+
+    private final BatchArena arena;
+    private final int generation;
+    private ByteBuffer records;
+    private int size = 0;
+
+
+    public TokenBuffer(BatchArena arena) {
+        this(arena, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public TokenBuffer(BatchArena arena, int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException();
+        this.arena = arena;
+        this.generation = arena.generation();
+        this.records = arena.allocate(initialCapacity * RECORD_SIZE);
+    }
+
+
+    private void checkValid() {
+        if (!isValid())
+            throw new IllegalStateException("Arena was reset");
+    }
+
+    /**
+     * false after the arena of the buffer was reset or closed.
+     */
+    public boolean isValid() {
+        return generation == arena.generation();
+    }
+
+    private void checkIndex(int index) {
+        checkValid();
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (capacity() >= minCapacity)
+            return;
+        ByteBuffer newRecords = arena.allocate(
+                Math.max((int) (capacity() * CAPACITY_MULTIPLIER), minCapacity) * RECORD_SIZE);
+        newRecords.put(0, records, 0, size * RECORD_SIZE);
+        records = newRecords;
+    }
+
+
+    public void add(int kind, int symbol, double value) {
+        checkValid();
+        ensureCapacity(size + 1);
+        int offset = size * RECORD_SIZE;
+        records.putInt(offset + KIND_OFFSET, kind);
+        records.putInt(offset + SYMBOL_OFFSET, symbol);
+        records.putDouble(offset + VALUE_OFFSET, value);
+        size++;
+    }
+
+    public int kind(int index) {
+        checkIndex(index);
+        return records.getInt(index * RECORD_SIZE + KIND_OFFSET);
+    }
+
+    public int symbol(int index) {
+        checkIndex(index);
+        return records.getInt(index * RECORD_SIZE + SYMBOL_OFFSET);
+    }
+
+    public double value(int index) {
+        checkIndex(index);
+        return records.getDouble(index * RECORD_SIZE + VALUE_OFFSET);
+    }
+
+    public void truncate(int newSize) {
+        checkValid();
+        if (newSize < 0 || newSize > size)
+            throw new IndexOutOfBoundsException();
+        size = newSize;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return records.capacity() / RECORD_SIZE;
+    }
+
+    /**
+     * Read-only view of the records, shares memory with this buffer.
+     */
+    public ByteBuffer asByteBuffer() {
+        checkValid();
+        return records.slice(0, size * RECORD_SIZE).asReadOnlyBuffer().order(BatchArena.BYTE_ORDER);
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = asByteBuffer();
+        while (view.hasRemaining())
+            channel.write(view);
+    }
+}
@@ -0,0 +1,384 @@
+package server;
+
+import algo.SortingStation;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the sorting station over a local TCP or Unix domain socket with a single selector thread.
+ * Protocol: one request per line, one response line per request in the same order.
+ * Requests are the commands of the REPL:
+ * expression      - postfix form of the expression
+ * eval expression - value of the expression
+ * stats           - counters of the server
+ * Clients may send many requests without waiting, all complete lines that arrive together
+ * are answered with one write. The last request may end without a newline if the client
+ * closes its side of the connection after it.
+ */
+public class ConversionServer implements Runnable, AutoCloseable {
+
+
+    /**
+     * Pending connections, the default of 50 drops connections when thousands of clients connect at once.
+     */
+    private static final int BACKLOG = 4096;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+    /**
+     * Reading from a client stops while this many response bytes wait to be written.
+     */
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    /**
+     * Accepting stops for this long when it fails, e.g. when the process is out of file descriptors.
+     */
+    private static final long ACCEPT_RETRY_DELAY_NANOS = 100_000_000;
+
+    private static final String EVAL_COMMAND = "eval ";
+    private static final String STATS_COMMAND = "stats";
+    private static final String LINE_TOO_LONG = "Line is too long";
+
+
+    private static class Connection {
+
+        ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteBuffer output = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        boolean closing = false;
+    }
+
+
+    private final SortingStation grammar;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    /**
+     * File of the Unix domain socket, null for TCP. Closing the channel does not delete it.
+     */
+    private final Path socketPath;
+    private final SelectionKey serverKey;
+    private volatile boolean running = true;
+    private boolean acceptPaused = false;
+    private long acceptRetryTime = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong activeConnections = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+
+    /**
+     * All requests are handled by the given station, which is used by the server thread only.
+     */
+    public ConversionServer(SocketAddress address, SortingStation grammar) throws IOException {
+        this.grammar = grammar;
+        this.selector = Selector.open();
+        this.socketPath = address instanceof UnixDomainSocketAddress unixAddress ? unixAddress.getPath() : null;
+        this.serverChannel = socketPath != null
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        boolean bound = false;
+        try {
+            serverChannel.bind(address, BACKLOG);
+            bound = true;
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            // a socket file that was there before belongs to someone else
+            if (bound)
+                deleteSocketFile();
+            throw e;
+        }
+    }
+
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return serverChannel.getLocalAddress();
+    }
+
+    public long getRequestsCount() {
+        return requests.get();
+    }
+
+    public long getBatchesCount() {
+        return batches.get();
+    }
+
+    public long getConnectionsCount() {
+        return connections.get();
+    }
+
+    public long getActiveConnectionsCount() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Average time from reading a request to writing its response.
+     */
+    public long getAverageLatencyNanos() {
+        long count = requests.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    public String statistics() {
+        return "requests=" + getRequestsCount()
+                + " batches=" + getBatchesCount()
+                + " connections=" + getConnectionsCount()
+                + " active=" + getActiveConnectionsCount()
+                + " avg_latency_us=" + getAverageLatencyNanos() / 1000
+                + " max_latency_us=" + getMaxLatencyNanos() / 1000;
+    }
+
+
+    /**
+     * Serves clients until close() is called.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                if (acceptPaused) {
+                    selector.select(Math.max(1, (acceptRetryTime - System.nanoTime()) / 1_000_000));
+                    if (System.nanoTime() - acceptRetryTime >= 0)
+                        resumeAccepting();
+                } else {
+                    selector.select();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        else
+                            serve(key);
+                    } catch (IOException e) {
+                        // only serve() throws, so this is a client connection
+                        disconnect(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (SelectionKey key : selector.keys())
+                if (key.attachment() instanceof Connection)
+                    disconnect(key);
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            deleteSocketFile();
+        }
+    }
+
+    /**
+     * Deletes the socket file, otherwise the next server can not bind to the same path.
+     */
+    private void deleteSocketFile() {
+        if (socketPath == null)
+            return;
+        try {
+            Files.deleteIfExists(socketPath);
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+
+    /**
+     * Accepts all pending connections. A failure does not close the server channel,
+     * accepting stops for a while instead, so that the pending connection is not retried in a busy loop.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                pauseAccepting();
+                return;
+            }
+            if (channel == null)
+                return;
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            connections.incrementAndGet();
+            activeConnections.incrementAndGet();
+        }
+    }
+
+    private void pauseAccepting() {
+        serverKey.interestOps(0);
+        acceptPaused = true;
+        acceptRetryTime = System.nanoTime() + ACCEPT_RETRY_DELAY_NANOS;
+    }
+
+    private void resumeAccepting() {
+        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        acceptPaused = false;
+    }
+
+    private void disconnect(SelectionKey key) {
+        if (!key.isValid())
+            return;
+        key.cancel();
+        closeQuietly(key.channel());
+        activeConnections.decrementAndGet();
+        // the closed channel frees a file descriptor
+        if (acceptPaused)
+            resumeAccepting();
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        if (key.isReadable()) {
+            if (channel.read(connection.input) < 0)
+                connection.closing = true;
+            long readTime = System.nanoTime();
+            int answered = answer(connection);
+            if (answered > 0) {
+                flush(channel, connection);
+                long latency = System.nanoTime() - readTime;
+                requests.addAndGet(answered);
+                batches.incrementAndGet();
+                totalLatencyNanos.addAndGet(latency * answered);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        }
+        if (key.isValid() && key.isWritable())
+            flush(channel, connection);
+
+        boolean pending = connection.output.position() > 0;
+        if (connection.closing && !pending) {
+            disconnect(key);
+            return;
+        }
+        int interest = 0;
+        if (!connection.closing && connection.output.position() < MAX_PENDING_OUTPUT)
+            interest |= SelectionKey.OP_READ;
+        if (pending)
+            interest |= SelectionKey.OP_WRITE;
+        key.interestOps(interest);
+    }
+
+    /**
+     * Answers all complete lines of the input, and the rest of it if the client closed its side.
+     * Returns the number of answered requests.
+     */
+    private int answer(Connection connection) {
+        ByteBuffer input = connection.input;
+        input.flip();
+        StringBuilder responses = new StringBuilder();
+        int answered = 0;
+        int lineStart = input.position();
+        for (int i = lineStart; i < input.limit(); i++) {
+            if (input.get(i) != '\n')
+                continue;
+            responses.append(respond(line(input, lineStart, i))).append('\n');
+            answered++;
+            lineStart = i + 1;
+        }
+        if (connection.closing && lineStart < input.limit()) {
+            responses.append(respond(line(input, lineStart, input.limit()))).append('\n');
+            answered++;
+            lineStart = input.limit();
+        }
+        input.position(lineStart);
+        input.compact();
+
+        if (!input.hasRemaining()) {
+            if (input.capacity() >= MAX_LINE_LENGTH) {
+                responses.append(LINE_TOO_LONG).append('\n');
+                answered++;
+                connection.closing = true;
+                input.clear();
+            } else {
+                ByteBuffer bigger = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                bigger.put(input);
+                connection.input = bigger;
+            }
+        }
+
+        if (answered > 0)
+            append(connection, StandardCharsets.UTF_8.encode(CharBuffer.wrap(responses)));
+        return answered;
+    }
+
+    private static String line(ByteBuffer input, int start, int end) {
+        if (end > start && input.get(end - 1) == '\r')
+            end--;
+        return new String(input.array(), input.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private String respond(String line) {
+        if (line.equals(STATS_COMMAND))
+            return statistics();
+        if (line.startsWith(EVAL_COMMAND)) {
+            grammar.setExpression(line.substring(EVAL_COMMAND.length()));
+            return grammar.evaluateExpression();
+        }
+        grammar.setExpression(line);
+        return grammar.proceedExpression();
+    }
+
+    private static void append(Connection connection, ByteBuffer bytes) {
+        ByteBuffer output = connection.output;
+        if (output.remaining() < bytes.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + bytes.remaining()));
+            output.flip();
+            bigger.put(output);
+            connection.output = output = bigger;
+        }
+        output.put(bytes);
+    }
+
+    private static void flush(SocketChannel channel, Connection connection) throws IOException {
+        ByteBuffer output = connection.output;
+        output.flip();
+        channel.write(output);
+        output.compact();
+    }
+}